@@ -0,0 +1,85 @@
+import { readFileSync } from "fs";
+import { cpus, totalmem } from "os";
+import type { JarResult } from "./pool";
+
+// ---- per-job JVM sizing: heap tier, GC and thread counts ----
+// Tiers double from 256 MB up to what the host (or its cgroup) can spare.
+// Heaps up to 4 GB get ParallelGC (best batch throughput), larger heaps G1, or
+// ZGC when AUTOFUSION_ZGC=true (Java 17+). Jobs with little input to process
+// run C1-only for fast startup.
+
+export const MB = 2 ** 20;
+const GB = 2 ** 30;
+
+function readCgroup(file: string) {
+  try {
+    return readFileSync(file, "utf8").trim();
+  } catch {
+    return undefined;
+  }
+}
+
+// cgroup v2 first, then v1; "max" or a huge v1 sentinel means unlimited
+function cgroupMemoryLimit() {
+  const v =
+    readCgroup("/sys/fs/cgroup/memory.max") ??
+    readCgroup("/sys/fs/cgroup/memory/memory.limit_in_bytes");
+  const n = v && /^\d+$/.test(v) ? Number(v) : Infinity;
+  return n < 2 ** 60 ? n : Infinity;
+}
+
+function cgroupCpuLimit() {
+  const v = readCgroup("/sys/fs/cgroup/cpu.max"); // "<quota> <period>" or "max <period>"
+  const [quota, period] = (v ?? "").split(/\s+/).map(Number);
+  return quota > 0 && period > 0 ? Math.max(1, Math.floor(quota / period)) : Infinity;
+}
+
+export const MEMORY_LIMIT = Math.min(totalmem(), cgroupMemoryLimit());
+export const CPUS = Math.min(cpus().length, cgroupCpuLimit());
+
+const MIN_HEAP = 256 * MB;
+const MAX_HEAP = Math.max(MIN_HEAP, Math.floor(MEMORY_LIMIT * 0.75));
+const USE_ZGC = process.env.AUTOFUSION_ZGC === "true";
+
+// Smallest tier with 50% headroom over the estimated live data
+export function pickHeap(estimate: number) {
+  let heap = MIN_HEAP;
+  while (heap < estimate * 1.5 && heap * 2 <= MAX_HEAP) heap *= 2;
+  return heap;
+}
+
+export function nextHeap(heap: number) {
+  return heap * 2 <= MAX_HEAP ? heap * 2 : undefined;
+}
+
+export type JvmOptions = {
+  threads?: number; // overrides the heap-scaled processor count for CPU-bound jobs
+  direct?: number; // extra direct memory on top of the JVM's default cap (the -Xmx value)
+  quick?: boolean; // little input: C1-only JIT, trading peak speed for startup
+};
+
+export function jvmFlags(heap: number, { threads, direct, quick }: JvmOptions = {}) {
+  const cpus = threads ?? Math.min(CPUS, Math.max(2, Math.ceil((2 * heap) / GB)));
+  const gc =
+    heap <= 4 * GB ? "-XX:+UseParallelGC" : USE_ZGC ? "-XX:+UseZGC" : "-XX:+UseG1GC";
+  const f = [
+    `-Xmx${heap / MB}m`,
+    gc,
+    `-XX:ParallelGCThreads=${cpus}`,
+    `-XX:ActiveProcessorCount=${cpus}`,
+    "-XX:+ExitOnOutOfMemoryError",
+  ];
+  if (quick) f.push("-XX:TieredStopAtLevel=1");
+  // The cap covers every NIO direct buffer (JDBC drivers, spill-file I/O), so keep the default share
+  if (direct) f.push(`-XX:MaxDirectMemorySize=${Math.ceil((heap + direct) / MB)}m`);
+  return f;
+}
+
+// -XX:+ExitOnOutOfMemoryError exits with status 3
+export function isOutOfMemory(r: JarResult) {
+  return r.code === 3 || /java\.lang\.OutOfMemoryError/.test(r.stderr);
+}
+
+export function formatBytes(n: number) {
+  return n >= GB ? `${+(n / GB).toFixed(1)} GB` : `${Math.round(n / MB)} MB`;
+}
@@ -0,0 +1,350 @@
+import { spawn, ChildProcessWithoutNullStreams } from "child_process";
+import { createInterface } from "readline";
+
+// ---- warm worker pool: long-lived `java -jar <jar> serve` daemons ----
+// Wire format is line-delimited JSON-RPC 2.0 on each worker's stdin/stdout:
+//   → {"jsonrpc":"2.0","id":1,"method":"run","params":{"args":["excel","--json",...],"payload":{...}}}
+//   ← {"jsonrpc":"2.0","id":1,"result":{ ...same JSON the one-shot CLI prints... }}
+// `payload` carries the inline tables, SQL and thresholds as plain JSON.
+// `ping` is the health check; any non-error reply counts as healthy.
+// While a job runs the worker may emit notifications for it, and the pool may
+// ask it to stop (the job then answers with {"status":"cancelled",...}):
+//   ← {"jsonrpc":"2.0","method":"progress","params":{"id":1,"phase":"read",...}}
+//   → {"jsonrpc":"2.0","method":"cancel","params":{"id":1}}
+// A dry run may answer with a `sessionId` whose loaded inputs stay resident in
+// that worker; the execute call is then pinned to the same worker.
+
+export type JarResult = { code: number; stdout: string; stderr: string };
+
+// NDJSON progress frame emitted by the CLI while it works
+export type ProgressFrame = {
+  phase?: string;
+  rowsRead?: { source?: number; target?: number };
+  rowsMatched?: number;
+  diffsFound?: number;
+  bytesWritten?: number;
+};
+
+export type RunOptions = {
+  sessionId?: string;
+  requestKey?: string; // hash of the normalized request; a session only serves the request that created it
+  payload?: Record<string, unknown>; // large values, sent as structured JSON
+  onProgress?: (frame: ProgressFrame) => void;
+  signal?: AbortSignal; // aborted when the MCP client cancels the request
+  jvmFlags?: string[]; // per-job heap/GC flags; one-shot spawns only
+};
+
+export const CANCELLED = JSON.stringify({ status: "cancelled" });
+
+export type PoolOptions = {
+  command: string; // java binary
+  args: string[]; // JVM flags + ["-jar", jar, "serve"]
+  size: number; // max live workers
+  minIdle: number; // workers kept warm when shrinking
+  maxJobs: number; // recycle a worker after this many jobs
+  idleMs: number; // shrink workers idle longer than this
+  pingMs: number; // health-check interval
+  cancelGraceMs: number; // kill a worker that ignores a cancel for this long
+  sessionTtlMs: number; // how long a dry-run session stays pinned to its worker
+};
+
+type Waiter = { pinned?: Worker; resolve: (w?: Worker) => void };
+
+type CallOptions = {
+  timeoutMs?: number;
+  onProgress?: (frame: ProgressFrame) => void;
+  signal?: AbortSignal;
+  cancelGraceMs?: number;
+};
+
+class Worker {
+  readonly proc: ChildProcessWithoutNullStreams;
+  private pending = new Map<number, (msg: any) => void>();
+  private listeners = new Map<number, (frame: ProgressFrame) => void>();
+  private seq = 0;
+  jobs = 0;
+  busy = false;
+  alive = true;
+  answered = false; // replied at least once, i.e. `serve` started
+
+  lastUsed = Date.now();
+
+  constructor(command: string, args: string[], onExit: (w: Worker) => void) {
+    this.proc = spawn(command, args, { stdio: ["pipe", "pipe", "pipe"] });
+    this.proc.stdin.on("error", () => {}); // EPIPE after exit is reported via "close"
+    createInterface({ input: this.proc.stdout }).on("line", (line) => {
+      let msg: any;
+      try {
+        msg = JSON.parse(line);
+      } catch {
+        return; // stray non-JSON output; the CLI should log to stderr
+      }
+      if (msg.jsonrpc === "2.0") this.answered = true;
+      if (msg.method === "progress") {
+        this.listeners.get(msg.params?.id)?.(msg.params);
+        return;
+      }
+      const cb = msg.id !== undefined ? this.pending.get(msg.id) : undefined;
+      if (cb) {
+        this.pending.delete(msg.id);
+        this.listeners.delete(msg.id);
+        cb(msg);
+      }
+    });
+    this.proc.stderr.on("data", (d) =>
+      process.stderr.write(`[autofusion-worker ${this.proc.pid}] ${d}`)
+    );
+
+    const die = () => {
+      if (!this.alive && this.pending.size === 0) return;
+      this.alive = false;
+      for (const cb of this.pending.values())
+        cb({ error: { message: "Autofusion worker exited unexpectedly" } });
+      this.pending.clear();
+      this.listeners.clear();
+      onExit(this);
+    };
+    this.proc.on("error", die);
+    this.proc.on("close", die);
+  }
+
+  call(method: string, params?: unknown, opts: CallOptions = {}) {
+    const { timeoutMs, onProgress, signal } = opts;
+    return new Promise<any>((resolve) => {
+      if (!this.alive)
+        return resolve({ error: { message: "Autofusion worker is not running" } });
+      const id = ++this.seq;
+      const timer = timeoutMs
+        ? setTimeout(() => {
+            this.pending.delete(id);
+            this.listeners.delete(id);
+            resolve({ error: { message: `Autofusion worker did not answer '${method}' within ${timeoutMs}ms` } });
+          }, timeoutMs)
+        : undefined;
+      // Ask the worker to stop the job; kill it if it does not wind down in time
+      const onAbort = () => {
+        this.send({ jsonrpc: "2.0", method: "cancel", params: { id } });
+        setTimeout(() => {
+          if (this.pending.has(id)) this.stop();
+        }, opts.cancelGraceMs ?? 10_000).unref();
+      };
+      this.pending.set(id, (msg) => {
+        if (timer) clearTimeout(timer);
+        signal?.removeEventListener("abort", onAbort);
+        resolve(msg);
+      });
+      if (onProgress) this.listeners.set(id, onProgress);
+      signal?.addEventListener("abort", onAbort, { once: true });
+      this.send({ jsonrpc: "2.0", id, method, params });
+    });
+  }
+
+  private send(msg: unknown) {
+    this.proc.stdin.write(JSON.stringify(msg) + "\n");
+  }
+
+  stop() {
+    this.alive = false;
+    this.proc.stdin.end();
+    this.proc.kill();
+  }
+}
+
+// Workers that exit before ever answering count as startup failures (e.g. a jar
+// without `serve`); after this many in a row the pool disables itself and
+// callers fall back to one-shot spawns.
+const MAX_STARTUP_FAILURES = 3;
+
+export class WorkerPool {
+  disabled = false;
+  private startupFailures = 0;
+  private workers: Worker[] = [];
+  private waiters: Waiter[] = [];
+  private sessions = new Map<string, { worker: Worker; expires: number; requestKey?: string }>();
+  private timer: NodeJS.Timeout;
+
+  constructor(private opts: PoolOptions) {
+    for (let i = 0; i < Math.min(opts.minIdle, opts.size); i++) this.spawn();
+    this.timer = setInterval(() => this.maintain(), opts.pingMs);
+    this.timer.unref();
+  }
+
+  async run(
+    args: string[],
+    opts: RunOptions = {}
+  ): Promise<JarResult> {
+    const { sessionId, requestKey, signal } = opts;
+    const owner = sessionId ? this.sessionOwner(sessionId, requestKey) : undefined;
+    for (;;) {
+      const w = await this.acquire(owner, signal);
+      if (!w && this.disabled)
+        return { code: 1, stdout: "", stderr: "Autofusion worker pool disabled: workers fail to start" };
+      if (!w) return { code: 0, stdout: CANCELLED, stderr: "" };
+      const r = await this.runOn(w, owner, args, opts);
+      // A worker that never came up is not the job's fault: try another one
+      if (r) return r;
+    }
+  }
+
+  // Resolves undefined when the worker died before ever answering
+  private async runOn(
+    w: Worker,
+    owner: Worker | undefined,
+    args: string[],
+    { sessionId, requestKey, payload, onProgress, signal }: RunOptions
+  ): Promise<JarResult | undefined> {
+    // The session only exists inside its owner; anywhere else run from scratch
+    const runArgs = owner && w === owner ? [...args, `--sessionId=${sessionId}`] : args;
+    try {
+      const msg = await w.call("run", { args: runArgs, payload }, {
+        onProgress,
+        signal,
+        cancelGraceMs: this.opts.cancelGraceMs,
+      });
+      if (msg.error && signal?.aborted) return { code: 0, stdout: CANCELLED, stderr: "" };
+      if (msg.error && !w.answered) return undefined;
+      if (msg.error)
+        return { code: 1, stdout: "", stderr: msg.error.message || "Autofusion worker error" };
+      if (sessionId) this.sessions.delete(sessionId);
+      if (msg.result?.sessionId)
+        this.sessions.set(msg.result.sessionId, {
+          worker: w,
+          expires: Date.now() + this.opts.sessionTtlMs,
+          requestKey,
+        });
+      return { code: 0, stdout: JSON.stringify(msg.result ?? {}), stderr: "" };
+    } finally {
+      this.release(w);
+    }
+  }
+
+  shutdown() {
+    clearInterval(this.timer);
+    this.workers.forEach((w) => w.stop());
+    this.workers = [];
+  }
+
+  private disable() {
+    if (this.disabled) return;
+    console.error(
+      `[autofusion-mcp] ${MAX_STARTUP_FAILURES} workers in a row exited before answering; falling back to one-shot spawns`
+    );
+    this.disabled = true;
+    this.shutdown();
+    this.waiters.splice(0).forEach((x) => x.resolve(undefined));
+  }
+
+  private spawn() {
+    const w = new Worker(this.opts.command, this.opts.args, (dead) => {
+      this.workers = this.workers.filter((x) => x !== dead);
+      this.startupFailures = dead.answered ? 0 : this.startupFailures + 1;
+      if (this.startupFailures >= MAX_STARTUP_FAILURES) this.disable();
+      this.dispatch();
+    });
+    this.workers.push(w);
+    return w;
+  }
+
+  // Resolves with undefined if the caller is cancelled while still queued
+  private acquire(pinned?: Worker, signal?: AbortSignal) {
+    return new Promise<Worker | undefined>((resolve) => {
+      if (signal?.aborted || this.disabled) return resolve(undefined);
+      const waiter: Waiter = { pinned, resolve };
+      this.waiters.push(waiter);
+      signal?.addEventListener(
+        "abort",
+        () => {
+          const i = this.waiters.indexOf(waiter);
+          if (i >= 0) {
+            this.waiters.splice(i, 1);
+            resolve(undefined);
+          }
+        },
+        { once: true }
+      );
+      this.dispatch();
+    });
+  }
+
+  // Inputs loaded for a different request (keys, sheet, SQL... changed) are not reused
+  private sessionOwner(sessionId: string, requestKey?: string) {
+    const s = this.sessions.get(sessionId);
+    if (s && s.worker.alive && s.expires > Date.now() && s.requestKey === requestKey) return s.worker;
+    this.sessions.delete(sessionId);
+    return undefined;
+  }
+
+  private holdsSession(w: Worker) {
+    const now = Date.now();
+    for (const s of this.sessions.values())
+      if (s.worker === w && s.expires > now) return true;
+    return false;
+  }
+
+  private release(w: Worker) {
+    w.jobs++;
+    w.lastUsed = Date.now();
+    w.busy = false;
+    if (w.jobs >= this.opts.maxJobs && !this.holdsSession(w)) this.retire(w);
+    this.dispatch();
+  }
+
+  // Hand free (or newly spawned) workers to queued callers in FIFO order;
+  // pinned callers wait for their session's worker unless it has died.
+  private dispatch() {
+    if (this.disabled) return;
+    for (let i = 0; i < this.waiters.length; ) {
+      const { pinned, resolve } = this.waiters[i];
+      const w = pinned?.alive
+        ? pinned.busy
+          ? undefined
+          : pinned
+        : this.workers.find((x) => x.alive && !x.busy && !this.isPinnedTarget(x)) ??
+          (this.workers.length < this.opts.size ? this.spawn() : undefined);
+      if (!w) {
+        i++;
+        continue;
+      }
+      w.busy = true;
+      this.waiters.splice(i, 1);
+      resolve(w);
+    }
+  }
+
+  private isPinnedTarget(w: Worker) {
+    return this.waiters.some((x) => x.pinned === w);
+  }
+
+  private retire(w: Worker) {
+    this.workers = this.workers.filter((x) => x !== w);
+    w.stop();
+  }
+
+  // Periodic housekeeping: shrink idle workers, ping the rest, keep minIdle warm
+  private maintain() {
+    if (this.disabled) return;
+    const now = Date.now();
+    for (const [id, s] of this.sessions)
+      if (s.expires <= now || !s.worker.alive) this.sessions.delete(id);
+    for (const w of this.workers.filter((x) => !x.busy)) {
+      if (
+        now - w.lastUsed > this.opts.idleMs &&
+        this.workers.length > this.opts.minIdle &&
+        !this.holdsSession(w)
+      ) {
+        this.retire(w);
+        continue;
+      }
+      w.busy = true;
+      w.call("ping", undefined, { timeoutMs: this.opts.pingMs / 2 }).then((msg) => {
+        w.busy = false;
+        if (msg.error) {
+          console.error(`[autofusion-mcp] worker ${w.proc.pid} failed health check: ${msg.error.message}`);
+          this.retire(w);
+        }
+        this.dispatch();
+      });
+    }
+    while (this.workers.length < Math.min(this.opts.minIdle, this.opts.size)) this.spawn();
+  }
+}
@@ -0,0 +1,100 @@
+// ---- admission control: global memory budget + fast/slow lanes ----
+// Every comparison reserves an estimated footprint before its JVM work starts.
+// Jobs are admitted while the sum of reservations fits the budget; a job larger
+// than the whole budget still runs, but only when nothing else is running.
+// Fast-lane jobs (dry runs, connection tests) are always admitted ahead of
+// slow-lane executions and may also use a slice of the budget that slow jobs
+// cannot, so they stay responsive while big executions run. Within a lane
+// jobs run in FIFO order.
+
+export type Lane = "fast" | "slow";
+
+export type Admission = {
+  lane: Lane;
+  reserve: number; // bytes
+  signal?: AbortSignal;
+  onQueued?: (position: number) => void; // 1-based, reported on every change
+};
+
+type Ticket = Admission & { resolve: (release?: () => void) => void; position: number };
+
+export class Scheduler {
+  private queue: Ticket[] = [];
+  private inUse = 0;
+  private running = 0;
+
+  constructor(private budget: number, private fastReserve: number) {}
+
+  // Resolves with a release callback once admitted, or undefined if cancelled while queued
+  admit(job: Admission) {
+    return new Promise<(() => void) | undefined>((resolve) => {
+      if (job.signal?.aborted) return resolve(undefined);
+      const ticket: Ticket = { ...job, resolve, position: 0 };
+      this.queue.push(ticket);
+      job.signal?.addEventListener(
+        "abort",
+        () => {
+          const i = this.queue.indexOf(ticket);
+          if (i < 0) return;
+          this.queue.splice(i, 1);
+          resolve(undefined);
+          this.pump();
+        },
+        { once: true }
+      );
+      this.pump();
+    });
+  }
+
+  private pump() {
+    for (const lane of ["fast", "slow"] as Lane[]) {
+      // Strict FIFO per lane so a big job is not starved by smaller ones behind it
+      let head: Ticket | undefined;
+      while ((head = this.queue.find((t) => t.lane === lane)) && this.fits(head)) {
+        this.queue.splice(this.queue.indexOf(head), 1);
+        this.start(head);
+      }
+    }
+    this.ordered().forEach((t, i) => {
+      if (t.position !== i + 1) {
+        t.position = i + 1;
+        t.onQueued?.(t.position);
+      }
+    });
+  }
+
+  private fits(t: Ticket) {
+    const limit = t.lane === "slow" ? this.budget - this.fastReserve : this.budget;
+    return this.running === 0 || this.inUse + t.reserve <= limit;
+  }
+
+  private start(t: Ticket) {
+    this.inUse += t.reserve;
+    this.running++;
+    let released = false;
+    t.resolve(() => {
+      if (released) return;
+      released = true;
+      this.inUse -= t.reserve;
+      this.running--;
+      this.pump();
+    });
+  }
+
+  private ordered() {
+    return [
+      ...this.queue.filter((t) => t.lane === "fast"),
+      ...this.queue.filter((t) => t.lane === "slow"),
+    ];
+  }
+}
+
+// "-Xmx2g" / "-Xmx512m" → bytes (undefined when no -Xmx is present)
+export function parseHeap(flags: string) {
+  const m = /-Xmx(\d+)([kmgt]?)/i.exec(flags);
+  if (!m) return undefined;
+  const unit = { "": 1, k: 2 ** 10, m: 2 ** 20, g: 2 ** 30, t: 2 ** 40 }[
+    m[2].toLowerCase() as "" | "k" | "m" | "g" | "t"
+  ];
+  return parseInt(m[1], 10) * unit;
+}
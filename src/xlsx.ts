@@ -0,0 +1,176 @@
+import { open } from "fs/promises";
+import { inflateRawSync } from "zlib";
+
+// ---- minimal .xlsx (zip) central-directory reader ----
+// Only the central directory at the end of the archive is read, so this is
+// cheap even for multi-GB workbooks. Entry sizes honour the ZIP64 extra field;
+// archives whose central directory itself needs ZIP64 are rejected.
+
+export type ZipEntry = {
+  name: string;
+  crc32: number;
+  compressedSize: number;
+  size: number; // uncompressed
+  method: number; // 0 = stored, 8 = deflate
+  offset: number; // local header offset
+};
+
+const EOCD_SIG = 0x06054b50;
+const CDH_SIG = 0x02014b50;
+const LFH_SIG = 0x04034b50;
+const U32_MAX = 0xffffffff;
+
+export async function readZipEntries(path: string): Promise<ZipEntry[]> {
+  const fh = await open(path, "r");
+  try {
+    const { size } = await fh.stat();
+    const tailLen = Math.min(size, 22 + 0xffff);
+    const tail = Buffer.alloc(tailLen);
+    await fh.read(tail, 0, tailLen, size - tailLen);
+
+    let eocd = -1;
+    for (let i = tailLen - 22; i >= 0; i--) {
+      if (tail.readUInt32LE(i) === EOCD_SIG) {
+        eocd = i;
+        break;
+      }
+    }
+    if (eocd < 0) throw new Error(`${path} is not a zip archive`);
+    const cdSize = tail.readUInt32LE(eocd + 12);
+    const cdOffset = tail.readUInt32LE(eocd + 16);
+    if (cdSize === U32_MAX || cdOffset === U32_MAX)
+      throw new Error(`${path}: ZIP64 central directory is not supported`);
+
+    const cd = Buffer.alloc(cdSize);
+    await fh.read(cd, 0, cdSize, cdOffset);
+
+    const entries: ZipEntry[] = [];
+    for (let p = 0; p + 46 <= cd.length && cd.readUInt32LE(p) === CDH_SIG; ) {
+      const nameLen = cd.readUInt16LE(p + 28);
+      const extraLen = cd.readUInt16LE(p + 30);
+      const commentLen = cd.readUInt16LE(p + 32);
+      const entry: ZipEntry = {
+        name: cd.toString("utf8", p + 46, p + 46 + nameLen),
+        method: cd.readUInt16LE(p + 10),
+        crc32: cd.readUInt32LE(p + 16),
+        compressedSize: cd.readUInt32LE(p + 20),
+        size: cd.readUInt32LE(p + 24),
+        offset: cd.readUInt32LE(p + 42),
+      };
+      readZip64Extra(cd.subarray(p + 46 + nameLen, p + 46 + nameLen + extraLen), entry);
+      entries.push(entry);
+      p += 46 + nameLen + extraLen + commentLen;
+    }
+    return entries;
+  } finally {
+    await fh.close();
+  }
+}
+
+// ZIP64 extended info (0x0001) holds only the fields saturated in the header, in this order
+function readZip64Extra(extra: Buffer, e: ZipEntry) {
+  for (let p = 0; p + 4 <= extra.length; ) {
+    const id = extra.readUInt16LE(p);
+    const len = extra.readUInt16LE(p + 2);
+    if (id === 0x0001) {
+      let q = p + 4;
+      const next = () => {
+        const v = Number(extra.readBigUInt64LE(q));
+        q += 8;
+        return v;
+      };
+      if (e.size === U32_MAX) e.size = next();
+      if (e.compressedSize === U32_MAX) e.compressedSize = next();
+      if (e.offset === U32_MAX) e.offset = next();
+      return;
+    }
+    p += 4 + len;
+  }
+}
+
+// Inflated contents of one entry (small parts only: workbook.xml, rels)
+export async function readZipEntry(path: string, e: ZipEntry) {
+  const fh = await open(path, "r");
+  try {
+    const header = Buffer.alloc(30);
+    await fh.read(header, 0, 30, e.offset);
+    if (header.readUInt32LE(0) !== LFH_SIG) throw new Error(`${path}: bad local header for ${e.name}`);
+    const start = e.offset + 30 + header.readUInt16LE(26) + header.readUInt16LE(28);
+    const data = Buffer.alloc(e.compressedSize);
+    await fh.read(data, 0, e.compressedSize, start);
+    if (e.method === 0) return data;
+    if (e.method === 8) return inflateRawSync(data);
+    throw new Error(`${path}: unsupported compression method ${e.method} for ${e.name}`);
+  } finally {
+    await fh.close();
+  }
+}
+
+const XML_ENTITIES: Record<string, string> = { lt: "<", gt: ">", quot: '"', apos: "'", amp: "&" };
+const unescapeXml = (s: string) => s.replace(/&(lt|gt|quot|apos|amp);/g, (_, k: string) => XML_ENTITIES[k]);
+
+const attr = (tag: string, name: string) =>
+  new RegExp(`\\s${name}="([^"]*)"`).exec(tag)?.[1];
+
+export type Workbook = {
+  entries: Map<string, ZipEntry>;
+  sheets: Map<string, string>; // sheet name → worksheet part (e.g. "xl/worksheets/sheet3.xml"), in workbook order
+  date1904: boolean;
+};
+
+// One central-directory read plus the small workbook.xml and its rels; callers
+// share the result instead of re-reading the archive
+export async function readWorkbook(path: string): Promise<Workbook> {
+  const entries = new Map((await readZipEntries(path)).map((e) => [e.name, e]));
+  const wb = entries.get("xl/workbook.xml");
+  const rels = entries.get("xl/_rels/workbook.xml.rels");
+  const sheets = new Map<string, string>();
+  if (!wb || !rels) return { entries, sheets, date1904: false };
+
+  const targets = new Map<string, string>();
+  for (const [tag] of (await readZipEntry(path, rels)).toString("utf8").matchAll(/<Relationship\b[^>]*>/g)) {
+    const id = attr(tag, "Id");
+    const target = attr(tag, "Target");
+    if (id && target)
+      targets.set(id, target.startsWith("/") ? target.slice(1) : `xl/${target.replace(/^\.\//, "")}`);
+  }
+
+  const xml = (await readZipEntry(path, wb)).toString("utf8");
+  for (const [tag] of xml.matchAll(/<sheet\b[^>]*>/g)) {
+    const name = attr(tag, "name");
+    const target = targets.get(attr(tag, "r:id") ?? "");
+    if (name && target) sheets.set(unescapeXml(name), target);
+  }
+  return { entries, sheets, date1904: /<workbookPr\b[^>]*\sdate1904="(1|true)"/.test(xml) };
+}
+
+// Uncompressed worksheet XML of one sheet (0 if absent)
+export function sheetSize(wb: Workbook, name: string) {
+  return wb.entries.get(wb.sheets.get(name) ?? "")?.size ?? 0;
+}
+
+// Uncompressed worksheet XML of the given sheets (default: all) plus shared
+// strings, i.e. what a reader must parse
+export function sheetXmlBytes(wb: Workbook, names: string[] = [...wb.sheets.keys()]) {
+  return names.reduce((n, name) => n + sheetSize(wb, name), wb.entries.get("xl/sharedStrings.xml")?.size ?? 0);
+}
+
+// Parts every worksheet's values depend on: shared strings (cell text is an
+// index into them) and styles (number formats decide which numbers are dates)
+const SHARED_PARTS = ["xl/sharedStrings.xml", "xl/styles.xml"];
+
+// Sheets present in both workbooks whose worksheet entry has the same CRC32 and
+// size, provided the shared parts and the date epoch match too. No worksheet
+// XML is touched.
+export function identicalSheets(w1: Workbook, w2: Workbook) {
+  const same = (a?: ZipEntry, b?: ZipEntry) =>
+    a === b || (!!a && !!b && a.crc32 === b.crc32 && a.size === b.size);
+  if (!SHARED_PARTS.every((n) => same(w1.entries.get(n), w2.entries.get(n)))) return [];
+  if (w1.date1904 !== w2.date1904) return []; // a different epoch shifts every date cell
+  return [...w1.sheets]
+    .filter(([name, part]) => {
+      const other = w2.sheets.get(name);
+      return other !== undefined && w1.entries.has(part) && same(w1.entries.get(part), w2.entries.get(other));
+    })
+    .map(([name]) => name);
+}